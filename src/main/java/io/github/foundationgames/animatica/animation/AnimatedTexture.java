@@ -2,52 +2,94 @@ package io.github.foundationgames.animatica.animation;
 
 import com.google.common.collect.ImmutableList;
 import io.github.foundationgames.animatica.Animatica;
+import io.github.foundationgames.animatica.util.BlendWeights;
+import io.github.foundationgames.animatica.util.ImageSource;
+import io.github.foundationgames.animatica.util.PalettedImage;
+import io.github.foundationgames.animatica.util.StreamedImage;
 import io.github.foundationgames.animatica.util.TextureUtil;
+import net.fabricmc.loader.api.FabricLoader;
 import net.minecraft.client.texture.NativeImage;
 import net.minecraft.client.texture.NativeImageBackedTexture;
+import net.minecraft.resource.Resource;
 import net.minecraft.resource.ResourceManager;
 import net.minecraft.util.Identifier;
+import net.minecraft.util.Util;
 import net.minecraft.util.math.MathHelper;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HexFormat;
 import java.util.List;
 import java.util.Optional;
 
 public class AnimatedTexture extends NativeImageBackedTexture {
-    public final Animation[] anims;
-    private final NativeImage original;
+    private static final String FRAME_CACHE_EXTENSION = ".frames";
+
+    public final Placement[] placements;
+    // Released after the first draw unless the texture was created to retain it
+    private @Nullable NativeImage original;
+    private final AnimationClocks clocks;
+    private final int clockTexture;
     private int frame = 0;
+    // Whether a streamed frame was missing when last drawn, so that the texture is drawn again once it has arrived
+    private boolean heldFrames = false;
 
-    public static Optional<AnimatedTexture> tryCreate(ResourceManager resources, Identifier targetTexId, List<AnimationMeta> anims) {
+    public static Optional<AnimatedTexture> tryCreate(ResourceManager resources, SharedAnimations animations, Identifier targetTexId, List<AnimationMeta> anims, boolean compactSources, long streamThreshold, int streamWindow, boolean retainOriginal) {
         try (var targetTexResource = resources.getResourceOrThrow(targetTexId).getInputStream()) {
-            return Optional.of(new AnimatedTexture(resources, anims, NativeImage.read(targetTexResource)));
+            return Optional.of(new AnimatedTexture(resources, animations, anims, NativeImage.read(targetTexResource), compactSources, streamThreshold, streamWindow, retainOriginal));
         } catch (IOException e) { Animatica.LOG.error(e); }
 
         return Optional.empty();
     }
 
-    public AnimatedTexture(ResourceManager resources, List<AnimationMeta> metas, NativeImage image) throws IOException {
+    public AnimatedTexture(ResourceManager resources, SharedAnimations animations, List<AnimationMeta> metas, NativeImage image, boolean compactSources, long streamThreshold, int streamWindow, boolean retainOriginal) throws IOException {
         super(new NativeImage(image.getFormat(), image.getWidth(), image.getHeight(), true));
 
-        this.anims = new Animation[metas.size()];
-        for (int i = 0; i < metas.size(); i++) {
-            this.anims[i] = new Animation(metas.get(i), resources);
+        this.placements = new Placement[metas.size()];
+        var animClocks = new int[metas.size()];
+        try {
+            for (int i = 0; i < metas.size(); i++) {
+                var meta = metas.get(i);
+                var anim = animations.acquire(meta, resources, compactSources, streamThreshold, streamWindow);
+                this.placements[i] = new Placement(anim, meta.targetX(), meta.targetY());
+                animClocks[i] = anim.clock;
+            }
+        } catch (IOException | RuntimeException e) {
+            // This texture will never be closed, so whatever it acquired before failing must be released here
+            for (var placement : placements) {
+                if (placement != null) {
+                    placement.animation().close();
+                }
+            }
+            image.close();
+            super.close();
+            throw e;
         }
         this.original = image;
+        this.clocks = animations.getClocks();
+        this.clockTexture = clocks.registerTexture(animClocks);
 
         updateAndDraw(this.getImage(), true);
         this.upload();
+
+        if (!retainOriginal) {
+            // Animations overwrite every pixel of their regions each time they are drawn, so after the first draw the
+            // working image never differs from the original outside of them, and the original is no longer needed
+            this.original.close();
+            this.original = null;
+        }
     }
 
     public boolean canLoop() {
-        for (var anim : anims) {
-            if (!anim.isOnFrameZero()) {
-                return false;
-            }
-        }
         // All animations for this texture are at zero again, so the frame counter can be reset
-        return true;
+        return clocks.isTextureOnFrameZero(clockTexture);
     }
 
     public boolean updateAndDraw(NativeImage image, boolean force) {
@@ -61,35 +103,38 @@ public class AnimatedTexture extends NativeImageBackedTexture {
             changed = true;
         }
 
-        for (var anim : anims) {
-            if (anim.isChanged()) {
-                changed = true;
-                break;
-            }
+        if (clocks.isTextureChanged(clockTexture) || heldFrames) {
+            changed = true;
         }
 
         if (changed || force) {
-            image.copyFrom(this.original);
+            if (this.original != null) {
+                image.copyFrom(this.original);
+            }
 
-            Phase phase;
-            for (var anim : anims) {
-                phase = anim.getCurrentPhase();
-                if (phase instanceof InterpolatedPhase iPhase) {
-                    TextureUtil.blendCopy(anim.sourceTexture, 0, iPhase.prevV, 0, iPhase.v, anim.width, anim.height, image, anim.targetX, anim.targetY, iPhase.blend.getBlend(anim.getPhaseFrame()));
-                } else {
-                    TextureUtil.copy(anim.sourceTexture, 0, phase.v, anim.width, anim.height, image, anim.targetX, anim.targetY);
-                }
+            heldFrames = false;
+            for (var placement : placements) {
+                placement.animation().draw(image, placement.targetX(), placement.targetY());
+                heldFrames |= placement.animation().isHoldingFrame();
             }
         }
 
-        for (var anim : anims) {
-            anim.advance();
-        }
+        // Animations themselves are advanced all at once by the loader before drawing, see AnimationClocks
         frame++;
 
         return changed;
     }
 
+    // The number of bytes held outside the Java heap by this texture's images, not counting animation sources
+    // which may be shared with other textures
+    public long getNativeBytes() {
+        long bytes = NativeMemoryAccountant.bytesOf(this.getImage());
+        if (this.original != null) {
+            bytes += NativeMemoryAccountant.bytesOf(this.original);
+        }
+        return bytes;
+    }
+
     public void tick() {
         if (this.updateAndDraw(this.getImage(), false)) {
             this.upload();
@@ -98,44 +143,63 @@ public class AnimatedTexture extends NativeImageBackedTexture {
 
     @Override
     public void close() {
-        for (var anim : anims) {
-            anim.close();
+        for (var placement : placements) {
+            placement.animation().close();
         }
 
-        this.original.close();
+        if (this.original != null) {
+            this.original.close();
+        }
         super.close();
     }
 
+    // Where an animation is drawn on this texture; one animation may be drawn to many places and textures
+    public record Placement(Animation animation, int targetX, int targetY) {}
+
     // Represents an active animation from an animation meta file; progresses through phases while being drawn
+    // The clock driving its progress is stored in the shared AnimationClocks rather than in this object
+    // One animation is shared by all placements with an identical definition, and is closed once all of them are
     public static class Animation implements AutoCloseable {
         private final List<Phase> phases;
-        public final NativeImage sourceTexture;
-        public final int targetX;
-        public final int targetY;
+        public final ImageSource sourceTexture;
         public final int width;
         public final int height;
         private final int duration;
-
-        private int frame = 0;
-        private Phase currentPhase = null;
-        private int phaseFrame = 0;
-        private boolean changed = true;
+        private final long nativeBytes;
+        private final AnimationClocks clocks;
+        public final int clock;
+
+        private int references = 1;
+        // The most recently blended frame, kept when shared so that it is only blended once for all placements
+        private int[] composed = null;
+        private @Nullable InterpolatedPhase composedPhase = null;
+        private int composedWeight = -1;
+        // The source frames to keep in memory should the source be streamed, and the phase they were found from
+        private int[] upcomingFrames = null;
+        private int upcomingFramesPhase = -1;
+        // Whether the last drawn frame (or the composed frame) used a held frame in place of a streamed one not yet read
+        private boolean holdingFrame = false;
 
         // Assembles all animation phases for one texture animation being baked
-        public Animation(AnimationMeta meta, ResourceManager resources) throws IOException {
-            this.targetX = meta.targetX();
-            this.targetY = meta.targetY();
+        public Animation(AnimationMeta meta, ResourceManager resources, AnimationClocks clocks, boolean compactSources, long streamThreshold, int streamWindow) throws IOException {
             this.width = meta.width();
             this.height = meta.height();
 
-            try (var source = resources.getResourceOrThrow(meta.source()).getInputStream()) {
-                this.sourceTexture = NativeImage.read(source);
+            var resource = resources.getResourceOrThrow(meta.source());
+            // Whether to stream is decided from the image header, so that a source cached by an earlier reload is never decoded
+            int[] size;
+            try (var source = resource.getInputStream()) {
+                size = TextureUtil.readPngSize(source);
             }
+            final boolean stream = size != null && streamThreshold > 0 && meta.height() > 0 &&
+                    (long) size[0] * size[1] * NativeImage.Format.RGBA.getChannelCount() > streamThreshold &&
+                    size[1] / meta.height() > streamWindow;
+            final NativeImage image = stream ? null : read(resource);
 
             var phases = ImmutableList.<Phase>builder();
             int duration = 0;
 
-            final int textureFrameCount = (int)Math.floor((float) sourceTexture.getHeight() / meta.height());
+            final int textureFrameCount = (int)Math.floor((float) (stream ? size[1] : image.getHeight()) / meta.height());
             final int animFrameCount = Math.max(textureFrameCount, meta.getGreatestUsedFrame() + 1);
 
             // The int array stored for each frame must contain the frame mapping and duration
@@ -168,8 +232,9 @@ public class AnimatedTexture extends NativeImageBackedTexture {
                     }
 
                     // Add interpolated animation phase
-                    final int interpolatedDuration = fDuration - meta.interpolationDelay();
-                    phases.add(new InterpolatedPhase(interpolatedDuration, v, nextV, (phaseFrame) -> ((float) phaseFrame / interpolatedDuration)));
+                    // A delay longer than the frame leaves nothing to interpolate, rather than a negative duration
+                    final int interpolatedDuration = Math.max(fDuration - meta.interpolationDelay(), 0);
+                    phases.add(new InterpolatedPhase(interpolatedDuration, v, nextV, BlendWeights.forDuration(interpolatedDuration)));
                     duration += interpolatedDuration;
                 } else {
                     phases.add(new Phase(fDuration, v));
@@ -179,58 +244,210 @@ public class AnimatedTexture extends NativeImageBackedTexture {
 
             this.duration = duration;
             this.phases = phases.build();
+            // Streamed only once the phases are known, so that it starts out with the frames drawn first
+            this.sourceTexture = stream ? streamSource(resource, meta, size, compactSources, streamWindow) : readSource(image, compactSources);
+            this.nativeBytes = sourceTexture.getNativeBytes();
 
-            updateCurrentPhase();
+            this.clocks = clocks;
+            this.clock = clocks.register(this.phases, duration);
         }
 
-        public void updateCurrentPhase() {
-            changed = false;
-            int progress = frame;
+        public @Nullable Phase getCurrentPhase() {
+            int phase = clocks.getPhase(clock);
+            return phase < 0 ? null : phases.get(phase);
+        }
 
-            for (var phase : phases) {
-                progress -= phase.duration; // Take away as much progress as each phase is long, until progress is below zero
-                if (progress < 0) {
-                    if (currentPhase != phase) {
-                        // Marks baking anim as changed should it be in a new, unique phase
-                        changed = true;
+        public int getPhaseFrame() {
+            return clocks.getPhaseFrame(clock);
+        }
+
+        public boolean isOnFrameZero() {
+            return clocks.isOnFrameZero(clock);
+        }
+
+        public boolean isChanged() {
+            return clocks.isChanged(clock);
+        }
+
+        public int getDuration() {
+            return duration;
+        }
+
+        public long getNativeBytes() {
+            return nativeBytes;
+        }
+
+        // Draws the current frame of this animation onto an image
+        public void draw(NativeImage dest, int x, int y) {
+            if (sourceTexture instanceof StreamedImage streamed) {
+                int phaseIndex = clocks.getPhase(clock);
+                if (upcomingFrames == null || upcomingFramesPhase != phaseIndex) {
+                    upcomingFrames = getUpcomingFrames(phaseIndex, streamed.getWindowSize());
+                    upcomingFramesPhase = phaseIndex;
+                }
+                streamed.prefetch(upcomingFrames);
+            }
+
+            var phase = getCurrentPhase();
+            if (phase instanceof InterpolatedPhase iPhase) {
+                int weight = iPhase.weights[getPhaseFrame()];
+                if (references > 1) {
+                    if (composed == null) {
+                        composed = new int[width * height];
+                    }
+                    // A composed frame which used held frames is blended again, as the real ones may have arrived since
+                    if (composedPhase != iPhase || composedWeight != weight || holdingFrame) {
+                        TextureUtil.blend(sourceTexture, 0, iPhase.prevV, 0, iPhase.v, width, height, composed, weight);
+                        composedPhase = iPhase;
+                        composedWeight = weight;
+                        updateHoldingFrame();
                     }
-                    if (phase instanceof InterpolatedPhase iPhase) changed = iPhase.hasChangingV(); // Marks baking anim as changed should its current phase be changing
+                    TextureUtil.copy(composed, width, height, dest, x, y);
+                } else {
+                    TextureUtil.blendCopy(sourceTexture, 0, iPhase.prevV, 0, iPhase.v, width, height, dest, x, y, weight);
+                    updateHoldingFrame();
+                }
+            } else if (phase != null) {
+                TextureUtil.copy(sourceTexture, 0, phase.v, width, height, dest, x, y);
+                updateHoldingFrame();
+            }
+        }
+
+        private void updateHoldingFrame() {
+            holdingFrame = sourceTexture instanceof StreamedImage streamed && streamed.isHoldingFrame();
+        }
+
+        // Whether what was last drawn is out of date, as a streamed frame had not been read in time
+        public boolean isHoldingFrame() {
+            return holdingFrame;
+        }
 
-                    this.currentPhase = phase;
-                    this.phaseFrame = phase.duration + progress; // Adding progress to the phase duration results in how far it is into the phase
+        public void retain() {
+            this.references++;
+        }
+
+        public boolean isClosed() {
+            return this.references <= 0;
+        }
+
+        @Override
+        public void close() {
+            if (--this.references == 0) {
+                this.sourceTexture.close();
+                this.composed = null;
+            }
+        }
 
-                    return;
+        // The source frames used from a phase onwards, in the order they will be drawn
+        private int[] getUpcomingFrames(int phase, int max) {
+            var frames = new int[max];
+            int count = 0;
+            for (int i = 0; i < phases.size() && count < max; i++) {
+                var p = phases.get(Math.floorMod(phase + i, phases.size()));
+                if (p instanceof InterpolatedPhase iPhase) {
+                    count = addFrame(frames, count, max, iPhase.prevV / height);
                 }
+                count = addFrame(frames, count, max, p.v / height);
             }
+            return Arrays.copyOf(frames, count);
         }
 
-        public Phase getCurrentPhase() {
-            return currentPhase;
+        private static int addFrame(int[] frames, int count, int max, int frame) {
+            for (int i = 0; i < count; i++) {
+                if (frames[i] == frame) {
+                    return count;
+                }
+            }
+            if (count < max) {
+                frames[count++] = frame;
+            }
+            return count;
         }
 
-        public int getPhaseFrame() {
-            return phaseFrame;
+        // Streams the source image from a frame cache file, reusing the file written by an earlier reload should the
+        // pack providing the image be unchanged, and otherwise decoding the image to write it again
+        private ImageSource streamSource(Resource resource, AnimationMeta meta, int[] size, boolean compactSources, int window) throws IOException {
+            final var initialFrames = getUpcomingFrames(0, window);
+            final var cacheFile = getFrameCacheFile(resource, meta.source());
+            if (cacheFile != null) {
+                try {
+                    var cached = StreamedImage.open(cacheFile, size[0], size[1], meta.height(), window, initialFrames, Util.getIoWorkerExecutor());
+                    if (cached != null) {
+                        return cached;
+                    }
+                } catch (IOException e) {
+                    Animatica.LOG.warn("Error reading frame cache for animation source '{}', writing it again", meta.source(), e);
+                }
+            }
+
+            var image = read(resource);
+            try {
+                var streamed = StreamedImage.create(image, getFrameCacheDir(), cacheFile, meta.height(), window, initialFrames, Util.getIoWorkerExecutor());
+                image.close();
+                if (cacheFile != null) {
+                    pruneFrameCache(cacheFile);
+                }
+                return streamed;
+            } catch (IOException e) {
+                Animatica.LOG.error("Error streaming animation source '{}', keeping it in memory instead", meta.source(), e);
+                return readSource(image, compactSources);
+            }
         }
 
-        public boolean isOnFrameZero() {
-            return frame <= 0;
+        // Palette encodes the source image if enabled and possible, falling back to the full image
+        private static ImageSource readSource(NativeImage image, boolean compactSources) {
+            if (compactSources) {
+                var paletted = PalettedImage.tryEncode(image);
+                if (paletted != null) {
+                    image.close();
+                    return paletted;
+                }
+            }
+            return ImageSource.of(image);
         }
 
-        public boolean isChanged() {
-            return changed;
+        private static NativeImage read(Resource resource) throws IOException {
+            try (var source = resource.getInputStream()) {
+                return NativeImage.read(source);
+            }
         }
 
-        public void advance() {
-            frame++;
-            if (frame >= duration) {
-                frame = 0;
+        private static Path getFrameCacheDir() {
+            return FabricLoader.getInstance().getGameDir().resolve(Animatica.NAMESPACE).resolve("frame_cache");
+        }
+
+        // Where a streamed source is kept between reloads, named after its identifier and the state of the pack providing it,
+        // or null should the pack have no fingerprint by which to tell whether it has changed
+        private static @Nullable Path getFrameCacheFile(Resource resource, Identifier id) {
+            var fingerprint = AnimationResourceIndex.fingerprint(resource.getPack());
+            if (fingerprint == null) {
+                return null;
             }
-            updateCurrentPhase();
+            return getFrameCacheDir().resolve(hash(id.toString()) + "-" + hash(resource.getResourcePackName() + "/" + fingerprint) + FRAME_CACHE_EXTENSION);
         }
 
-        @Override
-        public void close() {
-            this.sourceTexture.close();
+        // Deletes cache files of the same source written for earlier states of its pack
+        private static void pruneFrameCache(Path cacheFile) {
+            var name = cacheFile.getFileName().toString();
+            var prefix = name.substring(0, name.indexOf('-') + 1);
+            try (var files = Files.list(cacheFile.getParent())) {
+                for (var file : (Iterable<Path>) files::iterator) {
+                    var other = file.getFileName().toString();
+                    if (other.startsWith(prefix) && other.endsWith(FRAME_CACHE_EXTENSION) && !other.equals(name)) {
+                        // Still open by textures from before the reload on some systems, in which case it is left for next time
+                        Files.deleteIfExists(file);
+                    }
+                }
+            } catch (IOException ignored) {}
+        }
+
+        private static String hash(String str) {
+            try {
+                var digest = MessageDigest.getInstance("SHA-256").digest(str.getBytes(StandardCharsets.UTF_8));
+                return HexFormat.of().formatHex(digest, 0, 8);
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
         }
 
         private int getVForFrame(int frame, int textureFrameCount) {
@@ -258,23 +475,19 @@ public class AnimatedTexture extends NativeImageBackedTexture {
 
     // A phase that blends between its previous phase and itself, requiring the generation of many
     // more textures to construct the blend animation
+    // The blend for each frame of the phase is precomputed, see BlendWeights
     public static class InterpolatedPhase extends Phase {
         public final int prevV;
-        public final BlendInterpolator blend;
+        public final short[] weights;
 
-        public InterpolatedPhase(int duration, int v1, int v2, BlendInterpolator blend) {
+        public InterpolatedPhase(int duration, int v1, int v2, short[] weights) {
             super(duration, v2);
             this.prevV = v1;
-            this.blend = blend;
+            this.weights = weights;
         }
 
         public boolean hasChangingV() {
             return this.prevV != this.v;
         }
     }
-
-    @FunctionalInterface
-    public interface BlendInterpolator {
-        float getBlend(int phaseFrame);
-    }
 }
@@ -0,0 +1,333 @@
+package io.github.foundationgames.animatica.animation;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+// Holds the clocks of every loaded animation in flat primitive arrays, so that all animations in the game
+// can be advanced in one linear pass per tick instead of through one object (and several virtual calls) each
+// All clocks follow one shared tick counter, and may skip ahead any number of ticks at once without desyncing
+public final class AnimationClocks {
+    // Animation count at and above which the per-tick pass is split across the common fork-join pool
+    public static final int PARALLEL_THRESHOLD = 4096;
+    // Size of each parallel work unit; a multiple of 64 so that no two threads ever write to the same bitset word
+    private static final int PARALLEL_CHUNK = 64 * 16;
+
+    private static final byte STATIC = 0;
+    private static final byte INTERPOLATED = 1;
+    private static final byte INTERPOLATED_CHANGING = 2;
+
+    private long tick = 0;
+    private boolean quantizeBlends = true;
+
+    // Per animation clock
+    private int count = 0;
+    private int[] frames = new int[16];
+    private int[] durations = new int[16];
+    private int[] phaseStarts = new int[16]; // Offset of each animation's first phase in the flattened phase arrays
+    private int[] phaseCounts = new int[16];
+    private int[] currentPhases = new int[16]; // Relative to the animation's first phase, -1 before any phase is entered
+    private int[] phaseFrames = new int[16];
+    private long[] changed = new long[1];
+    private long[] onFrameZero = new long[1];
+
+    // Per phase, flattened across all animations
+    private int phaseCount = 0;
+    private int[] phaseEnds = new int[16]; // Frame at which each phase ends, counted from the start of its animation
+    private byte[] phaseKinds = new byte[16];
+    private short[][] phaseWeights = new short[16][]; // Blend weight tables of interpolated phases
+
+    // Per texture, each referencing a run of clock indices in the flattened texture clock array
+    private int textureCount = 0;
+    private int[] textureClockStarts = new int[17];
+    private int textureClockCount = 0;
+    private int[] textureClocks = new int[16];
+    private long[] textureChanged = new long[1];
+    private long[] textureOnFrameZero = new long[1];
+
+    public void clear() {
+        this.tick = 0;
+        this.count = 0;
+        this.phaseCount = 0;
+        this.textureCount = 0;
+        this.textureClockCount = 0;
+        Arrays.fill(this.changed, 0);
+        Arrays.fill(this.onFrameZero, 0);
+        Arrays.fill(this.textureChanged, 0);
+        Arrays.fill(this.textureOnFrameZero, 0);
+        Arrays.fill(this.phaseWeights, null);
+    }
+
+    /**
+     * @param quantizeBlends Whether interpolated animations should only be marked as changed when their blend
+     *                       weight changes, rather than on every frame
+     */
+    public void setQuantizeBlends(boolean quantizeBlends) {
+        this.quantizeBlends = quantizeBlends;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public long getTick() {
+        return tick;
+    }
+
+    /**
+     * Compiles the phases of an animation into a new clock, positioned at its first frame
+     *
+     * @param phases The phases of the animation, in order
+     * @param duration The total length of one cycle of the animation, in ticks
+     * @return The index of the new clock
+     */
+    public int register(List<AnimatedTexture.Phase> phases, int duration) {
+        int clock = count++;
+        if (clock >= frames.length) {
+            int size = frames.length * 2;
+            frames = Arrays.copyOf(frames, size);
+            durations = Arrays.copyOf(durations, size);
+            phaseStarts = Arrays.copyOf(phaseStarts, size);
+            phaseCounts = Arrays.copyOf(phaseCounts, size);
+            currentPhases = Arrays.copyOf(currentPhases, size);
+            phaseFrames = Arrays.copyOf(phaseFrames, size);
+        }
+        changed = ensureBits(changed, count);
+        onFrameZero = ensureBits(onFrameZero, count);
+
+        int start = phaseCount;
+        phaseCount += phases.size();
+        if (phaseCount > phaseEnds.length) {
+            int size = Math.max(phaseEnds.length * 2, phaseCount);
+            phaseEnds = Arrays.copyOf(phaseEnds, size);
+            phaseKinds = Arrays.copyOf(phaseKinds, size);
+            phaseWeights = Arrays.copyOf(phaseWeights, size);
+        }
+
+        int end = 0;
+        for (int p = 0; p < phases.size(); p++) {
+            var phase = phases.get(p);
+            // Phases never end before the one preceding them, which the binary search in updatePhase relies on
+            end += Math.max(phase.duration, 0);
+            phaseEnds[start + p] = end;
+            if (phase instanceof AnimatedTexture.InterpolatedPhase iPhase) {
+                phaseKinds[start + p] = iPhase.hasChangingV() ? INTERPOLATED_CHANGING : INTERPOLATED;
+                phaseWeights[start + p] = iPhase.weights;
+            } else {
+                phaseKinds[start + p] = STATIC;
+                phaseWeights[start + p] = null;
+            }
+        }
+
+        frames[clock] = 0;
+        durations[clock] = duration;
+        phaseStarts[clock] = start;
+        phaseCounts[clock] = phases.size();
+        currentPhases[clock] = -1;
+        phaseFrames[clock] = 0;
+        updatePhase(clock, 0, true);
+
+        return clock;
+    }
+
+    /**
+     * Groups clocks belonging to one texture, so that whether the texture needs to be redrawn can be
+     * determined once per tick for all of its animations
+     *
+     * @param clocks The indices of the clocks of each animation on the texture
+     * @return The index of the texture
+     */
+    public int registerTexture(int[] clocks) {
+        int texture = textureCount++;
+        if (textureCount >= textureClockStarts.length) {
+            textureClockStarts = Arrays.copyOf(textureClockStarts, textureClockStarts.length * 2);
+        }
+        if (textureClockCount + clocks.length > textureClocks.length) {
+            textureClocks = Arrays.copyOf(textureClocks, Math.max(textureClocks.length * 2, textureClockCount + clocks.length));
+        }
+        textureChanged = ensureBits(textureChanged, textureCount);
+        textureOnFrameZero = ensureBits(textureOnFrameZero, textureCount);
+
+        textureClockStarts[texture] = textureClockCount;
+        System.arraycopy(clocks, 0, textureClocks, textureClockCount, clocks.length);
+        textureClockCount += clocks.length;
+        textureClockStarts[textureCount] = textureClockCount;
+
+        updateTexture(texture);
+
+        return texture;
+    }
+
+    /**
+     * @return The current registrations, to which they can later be rolled back with {@link #rollback(Mark)}
+     */
+    public Mark mark() {
+        return new Mark(count, phaseCount, textureCount, textureClockCount);
+    }
+
+    /**
+     * Removes every clock and texture registered since the mark was taken, such as those of a texture which was
+     * discarded right after being loaded, so that they are no longer advanced
+     * None of the removed clocks or textures may still be in use, as their indices will be given out again
+     *
+     * @param mark The registrations to return to
+     */
+    public void rollback(Mark mark) {
+        Arrays.fill(this.phaseWeights, mark.phaseCount(), this.phaseCount, null);
+        this.count = mark.count();
+        this.phaseCount = mark.phaseCount();
+        this.textureCount = mark.textureCount();
+        this.textureClockCount = mark.textureClockCount();
+    }
+
+    /**
+     * Advances every registered animation to the given tick, then updates which textures have changed
+     * Should more than one tick have passed, each animation jumps straight to its correct phase and frame
+     *
+     * @param tick The tick to advance to
+     * @return Whether any time passed, and so whether the changed state of animations was updated
+     */
+    public boolean advanceTo(long tick) {
+        final long ticks = tick - this.tick;
+        if (ticks <= 0) {
+            return false;
+        }
+        this.tick = tick;
+
+        if (count >= PARALLEL_THRESHOLD) {
+            IntStream.range(0, (count + PARALLEL_CHUNK - 1) / PARALLEL_CHUNK).parallel()
+                    .forEach(chunk -> advanceRange(chunk * PARALLEL_CHUNK, Math.min(count, (chunk + 1) * PARALLEL_CHUNK), ticks));
+        } else {
+            advanceRange(0, count, ticks);
+        }
+
+        for (int t = 0; t < textureCount; t++) {
+            updateTexture(t);
+        }
+        return true;
+    }
+
+    private void advanceRange(int from, int to, long ticks) {
+        for (int clock = from; clock < to; clock++) {
+            int duration = durations[clock];
+            if (ticks == 1) {
+                int frame = frames[clock] + 1;
+                if (frame >= duration) {
+                    frame = 0;
+                }
+                frames[clock] = frame;
+                updatePhase(clock, frame, false);
+            } else {
+                int frame = duration > 0 ? (int) ((frames[clock] + ticks) % duration) : 0;
+                frames[clock] = frame;
+                updatePhase(clock, frame, true);
+            }
+        }
+    }
+
+    private void updatePhase(int clock, int frame, boolean seek) {
+        setBit(onFrameZero, clock, frame <= 0);
+
+        int start = phaseStarts[clock];
+        int n = phaseCounts[clock];
+        int prev = currentPhases[clock];
+
+        int p;
+        if (seek || prev < 0) {
+            // Binary search for the first phase ending after the frame
+            int lo = 0;
+            int hi = n;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (phaseEnds[start + mid] <= frame) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            p = lo;
+        } else {
+            // Frames only ever increase by one until the animation loops, so the search can continue from the current phase
+            p = frame == 0 ? 0 : prev;
+            while (p < n && phaseEnds[start + p] <= frame) {
+                p++;
+            }
+        }
+
+        if (p >= n) {
+            setBit(changed, clock, false);
+            return;
+        }
+
+        byte kind = phaseKinds[start + p];
+        int phaseFrame = p > 0 ? frame - phaseEnds[start + p - 1] : frame;
+
+        // Marks anim as changed should it be in a new phase, or should its current phase be changing
+        boolean phaseChanged = kind == STATIC ? p != prev : kind == INTERPOLATED_CHANGING;
+        if (phaseChanged && kind == INTERPOLATED_CHANGING && quantizeBlends && p == prev) {
+            // Within one interpolated phase, the drawn pixels only change along with the blend weight
+            var weights = phaseWeights[start + p];
+            phaseChanged = weights[phaseFrame] != weights[phaseFrames[clock]];
+        }
+        setBit(changed, clock, phaseChanged);
+
+        currentPhases[clock] = p;
+        phaseFrames[clock] = phaseFrame;
+    }
+
+    private void updateTexture(int texture) {
+        boolean anyChanged = false;
+        boolean allOnFrameZero = true;
+        for (int i = textureClockStarts[texture]; i < textureClockStarts[texture + 1]; i++) {
+            int clock = textureClocks[i];
+            anyChanged |= getBit(changed, clock);
+            allOnFrameZero &= getBit(onFrameZero, clock);
+        }
+        setBit(textureChanged, texture, anyChanged);
+        setBit(textureOnFrameZero, texture, allOnFrameZero);
+    }
+
+    public int getPhase(int clock) {
+        return currentPhases[clock];
+    }
+
+    public int getPhaseFrame(int clock) {
+        return phaseFrames[clock];
+    }
+
+    public boolean isChanged(int clock) {
+        return getBit(changed, clock);
+    }
+
+    public boolean isOnFrameZero(int clock) {
+        return getBit(onFrameZero, clock);
+    }
+
+    public boolean isTextureChanged(int texture) {
+        return getBit(textureChanged, texture);
+    }
+
+    // Whether all animations for a texture are at zero again
+    public boolean isTextureOnFrameZero(int texture) {
+        return getBit(textureOnFrameZero, texture);
+    }
+
+    public record Mark(int count, int phaseCount, int textureCount, int textureClockCount) {}
+
+    private static long[] ensureBits(long[] bits, int size) {
+        int words = (size + 63) >> 6;
+        return words > bits.length ? Arrays.copyOf(bits, Math.max(bits.length * 2, words)) : bits;
+    }
+
+    private static boolean getBit(long[] bits, int i) {
+        return (bits[i >> 6] & (1L << i)) != 0;
+    }
+
+    private static void setBit(long[] bits, int i, boolean value) {
+        if (value) {
+            bits[i >> 6] |= 1L << i;
+        } else {
+            bits[i >> 6] &= ~(1L << i);
+        }
+    }
+}
@@ -2,24 +2,27 @@ package io.github.foundationgames.animatica.animation;
 
 import com.mojang.blaze3d.systems.RenderSystem;
 import io.github.foundationgames.animatica.Animatica;
-import io.github.foundationgames.animatica.util.Flags;
+import io.github.foundationgames.animatica.config.AnimaticaConfig;
+import io.github.foundationgames.animatica.util.BlendWeights;
+import io.github.foundationgames.animatica.util.LenientIdentifiers;
+import io.github.foundationgames.animatica.util.TextureUtil;
 import io.github.foundationgames.animatica.util.exception.PropertyParseException;
 import net.fabricmc.fabric.api.resource.SimpleSynchronousResourceReloadListener;
 import net.minecraft.client.MinecraftClient;
-import net.minecraft.resource.Resource;
+import net.minecraft.client.texture.NativeImage;
 import net.minecraft.resource.ResourceManager;
 import net.minecraft.util.Identifier;
 import org.jetbrains.annotations.Nullable;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Properties;
 import java.util.Set;
-import java.util.function.BiConsumer;
+import java.util.stream.Collectors;
 
 public final class AnimationLoader implements SimpleSynchronousResourceReloadListener {
     public static final String[] ANIM_PATHS = {
@@ -28,31 +31,39 @@ public final class AnimationLoader implements SimpleSynchronousResourceReloadLis
             "optifine/anim"
     };
     private static final Identifier ID = Animatica.id("animation_storage");
+    private static final int LARGEST_TEXTURES_LOGGED = 5;
 
     public static final AnimationLoader INSTANCE = new AnimationLoader();
 
     private final Map<Identifier, Identifier> animationIds = new HashMap<>();
     private final Set<AnimatedTexture> animatedTextures = new HashSet<>();
+    private final AnimationClocks clocks = new AnimationClocks();
+    private final SharedAnimations sharedAnimations = new SharedAnimations(clocks);
+    private final NativeMemoryAccountant nativeMemory = new NativeMemoryAccountant();
+    private long ticks = 0;
+    private final AnimationResourceIndex resourceIndex = new AnimationResourceIndex();
 
     private AnimationLoader() {
     }
 
-    private static void findAllMCPAnimations(ResourceManager manager, BiConsumer<Identifier, Resource> action) {
-        for (var path : ANIM_PATHS) {
-            manager.findResources(path, p -> p.getPath().endsWith(".properties")).forEach(action);
-        }
-    }
-
     public @Nullable Identifier getAnimationId(Identifier id) {
         return animationIds.get(id);
     }
 
     public void tickTextures() {
+        this.ticks++;
+    }
+
+    // Called once per rendered frame, so that however many client ticks ran since the last frame, animations
+    // jump straight to where they should be and are drawn only once
+    public void updateTextures() {
         if (!RenderSystem.isOnRenderThread()) {
-            RenderSystem.recordRenderCall(this::tickTextures);
+            RenderSystem.recordRenderCall(this::updateTextures);
         } else {
-            for (var texture : animatedTextures) {
-                texture.tick();
+            if (clocks.advanceTo(this.ticks)) {
+                for (var texture : animatedTextures) {
+                    texture.tick();
+                }
             }
         }
     }
@@ -66,42 +77,155 @@ public final class AnimationLoader implements SimpleSynchronousResourceReloadLis
     public void reload(ResourceManager manager) {
         this.animatedTextures.clear();
         this.animationIds.clear();
+        this.clocks.clear();
+        this.sharedAnimations.clear();
+        this.clocks.setQuantizeBlends(Animatica.CONFIG.quantizeBlends);
+        BlendWeights.clearCache();
+        this.nativeMemory.clear();
+        this.ticks = 0;
 
         if (!Animatica.CONFIG.animatedTextures) {
+            this.resourceIndex.clearCache();
             return;
         }
 
-        Flags.ALLOW_INVALID_ID_CHARS = true;
-
         var animations = new HashMap<Identifier, List<AnimationMeta>>();
 
-        findAllMCPAnimations(manager, (id, resource) -> {
-            try {
-                try (var resourceInputStream = resource.getInputStream()) {
-                    var ppt = new Properties();
-                    ppt.load(resourceInputStream);
-
-                    var anim = AnimationMeta.of(id, ppt);
+        // Legacy packs may use invalid identifiers, which are allowed only while finding and parsing animation files
+        LenientIdentifiers.begin();
+        try {
+            for (var file : resourceIndex.build(manager)) {
+                LenientIdentifiers.setPack(file.pack());
+                try {
+                    var anim = AnimationMeta.of(file.id(), file.properties());
 
                     var targetId = anim.target();
                     if (!animations.containsKey(targetId)) animations.put(targetId, new ArrayList<>());
                     animations.get(targetId).add(anim);
+                } catch (PropertyParseException e) {
+                    Animatica.LOG.error(e.getMessage());
                 }
-            } catch (IOException | PropertyParseException e) {
-                Animatica.LOG.error(e.getMessage());
             }
-        });
-
-        for (var targetId : animations.keySet()) {
-            AnimatedTexture.tryCreate(manager, targetId, animations.get(targetId))
-                    .ifPresent(tex -> {
-                        var animId = new Identifier(targetId.getNamespace(), targetId.getPath() + "-anim");
-                        this.animationIds.put(targetId, animId);
-                        this.animatedTextures.add(tex);
-                        tex.registerTexture(MinecraftClient.getInstance().getTextureManager(), manager, animId, MinecraftClient.getInstance());
-                    });
+        } finally {
+            LenientIdentifiers.end();
         }
 
-        Flags.ALLOW_INVALID_ID_CHARS = false;
+        final long budget = Animatica.CONFIG.nativeMemoryBudgetMb * 1024L * 1024L;
+        final long streamThreshold = Animatica.CONFIG.streamThresholdMb * 1024L * 1024L;
+        final int streamWindow = Animatica.CONFIG.streamWindowFrames;
+        var targets = new ArrayList<>(animations.keySet());
+        var estimates = new HashMap<Identifier, Long>();
+        // Even fully degraded, the working image must be allocated; whether sources can be palette encoded
+        // (and so kept off-heap) is not known until they are decoded, so they may all be compactable
+        var lowerBounds = new HashMap<Identifier, Long>();
+        var sourceBytes = new HashMap<Identifier, Long>();
+        if (budget > 0) {
+            // Load smaller textures first, so that should the budget run out it is the largest ones that are skipped
+            for (var targetId : targets) {
+                lowerBounds.put(targetId, estimateNativeBytes(manager, targetId));
+                estimates.put(targetId, estimateNativeBytes(manager, lowerBounds.get(targetId), animations.get(targetId), Animatica.CONFIG.leanTextures, sourceBytes));
+            }
+            targets.sort(Comparator.comparingLong(estimates::get));
+        }
+
+        int skipped = 0;
+        long skippedBytes = 0;
+        for (var targetId : targets) {
+            if (budget > 0 && nativeMemory.getTotalBytes() + lowerBounds.get(targetId) > budget) {
+                // Skip before decoding anything, as the texture cannot fit even when degraded
+                Animatica.LOG.warn("Skipping animated texture '{}' (at least {}), as it would exceed the native memory budget of {}",
+                        targetId, NativeMemoryAccountant.format(lowerBounds.get(targetId)), NativeMemoryAccountant.format(budget));
+                skipped++;
+                skippedBytes += estimates.get(targetId);
+                continue;
+            }
+
+            boolean compactSources = Animatica.CONFIG.compactSources;
+            boolean leanTextures = Animatica.CONFIG.leanTextures;
+            if (budget > 0) {
+                // Estimated again, as sources loaded by earlier textures are shared for free
+                long estimate = estimateNativeBytes(manager, lowerBounds.get(targetId), animations.get(targetId), leanTextures, sourceBytes);
+                if (nativeMemory.getTotalBytes() + estimate > budget && !(compactSources && leanTextures)) {
+                    // First try to fit the texture by palette encoding its animation sources and releasing its original image
+                    Animatica.LOG.info("Animated texture '{}' (estimated {}) would exceed the native memory budget of {}; palette encoding its animation sources and releasing its original image",
+                            targetId, NativeMemoryAccountant.format(estimate), NativeMemoryAccountant.format(budget));
+                    compactSources = true;
+                    leanTextures = true;
+                }
+            }
+
+            long sharedBytes = sharedAnimations.getNativeBytes();
+            var clocksMark = clocks.mark();
+            var texture = AnimatedTexture.tryCreate(manager, this.sharedAnimations, targetId, animations.get(targetId), compactSources, streamThreshold, streamWindow, !leanTextures);
+            if (texture.isEmpty()) {
+                // Stop advancing any animations compiled before the texture failed to load
+                sharedAnimations.purgeClosed();
+                clocks.rollback(clocksMark);
+                continue;
+            }
+
+            // Animation sources are counted towards the first texture to use them
+            var tex = texture.get();
+            long bytes = tex.getNativeBytes() + (sharedAnimations.getNativeBytes() - sharedBytes);
+            // Backstop for estimates that fell short, such as for sources that could not be palette encoded
+            if (budget > 0 && nativeMemory.getTotalBytes() + bytes > budget) {
+                Animatica.LOG.warn("Skipping animated texture '{}' ({}), as it would exceed the native memory budget of {}",
+                        targetId, NativeMemoryAccountant.format(bytes), NativeMemoryAccountant.format(budget));
+                tex.close();
+                sharedAnimations.purgeClosed();
+                clocks.rollback(clocksMark);
+                skipped++;
+                skippedBytes += bytes;
+                continue;
+            }
+
+            nativeMemory.track(targetId, bytes);
+            var animId = LenientIdentifiers.withSuffix(targetId, "-anim");
+            this.animationIds.put(targetId, animId);
+            this.animatedTextures.add(tex);
+            tex.registerTexture(MinecraftClient.getInstance().getTextureManager(), manager, animId, MinecraftClient.getInstance());
+        }
+
+        if (skipped > 0) {
+            Animatica.LOG.warn("Skipped {} animated textures ({}) to stay within the native memory budget of {}; raise '{}' in {} to load them",
+                    skipped, NativeMemoryAccountant.format(skippedBytes), NativeMemoryAccountant.format(budget),
+                    AnimaticaConfig.NATIVE_MEMORY_BUDGET_KEY, AnimaticaConfig.FILE_NAME);
+        }
+        Animatica.LOG.info("Loaded {} animated textures with {} unique animations, using {} of native memory",
+                this.animatedTextures.size(), this.sharedAnimations.size(), NativeMemoryAccountant.format(nativeMemory.getTotalBytes()));
+
+        var largest = nativeMemory.getLargestTextures(LARGEST_TEXTURES_LOGGED);
+        if (!largest.isEmpty()) {
+            Animatica.LOG.info("Largest animated textures: {}", largest.stream()
+                    .map(e -> e.getKey() + " (" + NativeMemoryAccountant.format(e.getValue()) + ")")
+                    .collect(Collectors.joining(", ")));
+        }
+    }
+
+    // Estimates the native memory an animated texture will use from its image headers, without decoding them
+    private long estimateNativeBytes(ResourceManager manager, long targetBytes, List<AnimationMeta> metas, boolean leanTextures, Map<Identifier, Long> sourceBytes) {
+        // The target is held as the working image, and unless lean also as the original
+        long bytes = (leanTextures ? 1 : 2) * targetBytes;
+        // Identical animations share one source, which costs nothing more once loaded by an earlier texture
+        var definitions = new HashSet<AnimationMeta>();
+        for (var meta : metas) {
+            if (definitions.add(meta.withoutPlacement()) && !sharedAnimations.contains(meta)) {
+                bytes += sourceBytes.computeIfAbsent(meta.source(), id -> estimateNativeBytes(manager, id));
+            }
+        }
+        return bytes;
+    }
+
+    private static long estimateNativeBytes(ResourceManager manager, Identifier imageId) {
+        var resource = manager.getResource(imageId);
+        if (resource.isEmpty()) {
+            return 0;
+        }
+
+        try (var in = resource.get().getInputStream()) {
+            return Math.max(0, TextureUtil.readPngPixelCount(in)) * NativeImage.Format.RGBA.getChannelCount();
+        } catch (IOException e) {
+            return 0;
+        }
     }
 }
@@ -1,5 +1,6 @@
 package io.github.foundationgames.animatica.animation;
 
+import io.github.foundationgames.animatica.util.LenientIdentifiers;
 import io.github.foundationgames.animatica.util.PropertyUtil;
 import io.github.foundationgames.animatica.util.Utilities;
 import io.github.foundationgames.animatica.util.exception.InvalidPropertyException;
@@ -22,10 +23,10 @@ public record AnimationMeta(
         Identifier source;
         Identifier target;
         try {
-            source = Utilities.processPath(file, new Identifier(PropertyUtil.get(file, properties, "from")));
+            source = Utilities.processPath(file, LenientIdentifiers.of(PropertyUtil.get(file, properties, "from")));
         } catch (InvalidIdentifierException ex) { throw new InvalidPropertyException(file, "from", "resource location"); }
         try {
-            target = Utilities.processPath(file, new Identifier(PropertyUtil.get(file, properties, "to")));
+            target = Utilities.processPath(file, LenientIdentifiers.of(PropertyUtil.get(file, properties, "to")));
         } catch (InvalidIdentifierException ex) { throw new InvalidPropertyException(file, "to", "resource location"); }
         return new AnimationMeta(
                 source,
@@ -42,6 +43,14 @@ public record AnimationMeta(
         );
     }
 
+    // The definition of this animation apart from which texture and where it is drawn to, such that identical animations can be shared
+    public AnimationMeta withoutPlacement() {
+        return new AnimationMeta(
+                source, null, 0, 0, width, height, defaultFrameDuration, interpolate,
+                interpolationDelay, frameMapping, frameDurations
+        );
+    }
+
     public int getGreatestUsedFrame() {
         Set<Integer> frames = new HashSet<>(frameMapping.keySet());
         frames.addAll(frameDurations.keySet());
@@ -0,0 +1,129 @@
+package io.github.foundationgames.animatica.animation;
+
+import io.github.foundationgames.animatica.Animatica;
+import io.github.foundationgames.animatica.util.LenientIdentifiers;
+import net.minecraft.client.MinecraftClient;
+import net.minecraft.resource.DefaultResourcePack;
+import net.minecraft.resource.ResourceManager;
+import net.minecraft.resource.ResourcePack;
+import net.minecraft.resource.ResourceType;
+import net.minecraft.resource.ZipResourcePack;
+import net.minecraft.util.Identifier;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+// Finds animation property files by visiting each resource pack once (searching only its animation folders),
+// caching what was found in each pack so that packs which are unchanged since the last reload need not be searched again
+// Only the property files are indexed; the images they reference with "from" and "to" are looked up through the
+// resource manager when loaded, as they may come from any other pack, and a cached entry would go stale whenever that did
+public final class AnimationResourceIndex {
+    private final Map<String, CachedPack> cache = new HashMap<>();
+
+    /**
+     * Find all animation property files, where files in higher priority packs replace those in lower ones
+     *
+     * @param manager The resource manager to search the packs of
+     * @return Each animation file found, along with its contents and the pack providing it
+     */
+    public List<IndexedFile> build(ResourceManager manager) {
+        var files = new LinkedHashMap<Identifier, IndexedFile>();
+        var seenPacks = new HashSet<String>();
+        int scanned = 0;
+        int reused = 0;
+
+        // Packs are streamed from lowest to highest priority
+        for (var pack : (Iterable<ResourcePack>) manager.streamResourcePacks()::iterator) {
+            var name = pack.getName();
+            seenPacks.add(name);
+            LenientIdentifiers.setPack(name);
+
+            var fingerprint = fingerprint(pack);
+            var cached = cache.get(name);
+            Map<Identifier, Properties> packFiles;
+            if (fingerprint != null && cached != null && fingerprint.equals(cached.fingerprint())) {
+                packFiles = cached.files();
+                reused++;
+            } else {
+                packFiles = scan(pack);
+                scanned++;
+                if (fingerprint != null) {
+                    cache.put(name, new CachedPack(fingerprint, packFiles));
+                } else {
+                    cache.remove(name);
+                }
+            }
+
+            packFiles.forEach((id, properties) -> files.put(id, new IndexedFile(id, name, properties)));
+        }
+
+        // Forget packs that are no longer enabled
+        cache.keySet().retainAll(seenPacks);
+
+        // Packs may hide the files of lower packs with the filter section of their pack.mcmeta, which only the
+        // resource manager applies, so files it no longer resolves are dropped
+        files.values().removeIf(file -> manager.getResource(file.id()).isEmpty());
+
+        Animatica.LOG.debug("Indexed {} animation files, searched {} resource packs and reused {} from cache", files.size(), scanned, reused);
+        return new ArrayList<>(files.values());
+    }
+
+    public void clearCache() {
+        this.cache.clear();
+    }
+
+    private static Map<Identifier, Properties> scan(ResourcePack pack) {
+        var files = new HashMap<Identifier, Properties>();
+        for (var namespace : pack.getNamespaces(ResourceType.CLIENT_RESOURCES)) {
+            for (var path : AnimationLoader.ANIM_PATHS) {
+                pack.findResources(ResourceType.CLIENT_RESOURCES, namespace, path, (id, input) -> {
+                    if (!id.getPath().endsWith(".properties")) {
+                        return;
+                    }
+                    LenientIdentifiers.check(id);
+
+                    try (var in = input.get()) {
+                        var ppt = new Properties();
+                        ppt.load(in);
+                        files.put(id, ppt);
+                    } catch (IOException e) {
+                        Animatica.LOG.error(e.getMessage());
+                    }
+                });
+            }
+        }
+        return files;
+    }
+
+    // Identifies the contents of a pack which cannot change while its fingerprint stays the same, or returns
+    // null for packs that could change without notice (such as folder packs being edited) and must always be searched
+    static @Nullable String fingerprint(ResourcePack pack) {
+        if (pack instanceof DefaultResourcePack) {
+            return "default";
+        }
+
+        var name = pack.getName();
+        if (pack instanceof ZipResourcePack && name.startsWith("file/")) {
+            try {
+                var file = MinecraftClient.getInstance().getResourcePackDir().resolve(name.substring("file/".length()));
+                var attributes = Files.readAttributes(file, BasicFileAttributes.class);
+                return attributes.size() + ":" + attributes.lastModifiedTime().toMillis();
+            } catch (IOException | RuntimeException ignored) {}
+        }
+
+        return null;
+    }
+
+    public record IndexedFile(Identifier id, String pack, Properties properties) {}
+
+    private record CachedPack(String fingerprint, Map<Identifier, Properties> files) {}
+}
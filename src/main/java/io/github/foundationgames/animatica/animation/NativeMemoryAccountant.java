@@ -0,0 +1,44 @@
+package io.github.foundationgames.animatica.animation;
+
+import net.minecraft.client.texture.NativeImage;
+import net.minecraft.util.Identifier;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Keeps track of how much off-heap memory is held by the images of each animated texture
+public final class NativeMemoryAccountant {
+    private final Map<Identifier, Long> textureBytes = new HashMap<>();
+    private long totalBytes = 0;
+
+    public void clear() {
+        this.textureBytes.clear();
+        this.totalBytes = 0;
+    }
+
+    public void track(Identifier texture, long bytes) {
+        var old = this.textureBytes.put(texture, bytes);
+        this.totalBytes += bytes - (old == null ? 0 : old);
+    }
+
+    public long getTotalBytes() {
+        return this.totalBytes;
+    }
+
+    // The textures holding the most native memory, largest first
+    public List<Map.Entry<Identifier, Long>> getLargestTextures(int count) {
+        return this.textureBytes.entrySet().stream()
+                .sorted(Map.Entry.<Identifier, Long>comparingByValue().reversed())
+                .limit(count)
+                .toList();
+    }
+
+    public static long bytesOf(NativeImage image) {
+        return (long) image.getWidth() * image.getHeight() * image.getFormat().getChannelCount();
+    }
+
+    public static String format(long bytes) {
+        return String.format("%.1f MiB", bytes / (1024d * 1024d));
+    }
+}
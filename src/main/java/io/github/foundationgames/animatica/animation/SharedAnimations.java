@@ -0,0 +1,75 @@
+package io.github.foundationgames.animatica.animation;
+
+import net.minecraft.resource.ResourceManager;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+// Compiles animations, sharing one compiled animation (with one source image and one clock) between all
+// animation files with identical definitions that only differ in which texture and where they are drawn to
+public final class SharedAnimations {
+    private final AnimationClocks clocks;
+    private final Map<AnimationMeta, AnimatedTexture.Animation> animations = new HashMap<>();
+    private long nativeBytes = 0;
+
+    public SharedAnimations(AnimationClocks clocks) {
+        this.clocks = clocks;
+    }
+
+    public AnimationClocks getClocks() {
+        return clocks;
+    }
+
+    /**
+     * Get the compiled animation for an animation file, compiling it if no identical animation has been yet
+     * The returned animation must be closed by the caller once no longer used
+     */
+    public AnimatedTexture.Animation acquire(AnimationMeta meta, ResourceManager resources, boolean compactSources, long streamThreshold, int streamWindow) throws IOException {
+        var definition = meta.withoutPlacement();
+        var anim = animations.get(definition);
+
+        if (anim == null || anim.isClosed()) {
+            anim = new AnimatedTexture.Animation(meta, resources, clocks, compactSources, streamThreshold, streamWindow);
+            animations.put(definition, anim);
+            nativeBytes += anim.getNativeBytes();
+        } else {
+            anim.retain();
+        }
+
+        return anim;
+    }
+
+    // Whether an identical animation is already compiled, such that acquiring it would not load its source again
+    public boolean contains(AnimationMeta meta) {
+        var anim = animations.get(meta.withoutPlacement());
+        return anim != null && !anim.isClosed();
+    }
+
+    // Forgets animations which have since been closed by all of their users
+    public void purgeClosed() {
+        var iter = animations.values().iterator();
+        while (iter.hasNext()) {
+            var anim = iter.next();
+            if (anim.isClosed()) {
+                nativeBytes -= anim.getNativeBytes();
+                iter.remove();
+            }
+        }
+    }
+
+    // The number of bytes held outside the Java heap by the sources of all animations compiled since the last clear
+    public long getNativeBytes() {
+        return nativeBytes;
+    }
+
+    public int size() {
+        return animations.size();
+    }
+
+    // Forgets all animations, which remain open until closed by their users
+    public void clear() {
+        this.animations.clear();
+        this.nativeBytes = 0;
+    }
+}
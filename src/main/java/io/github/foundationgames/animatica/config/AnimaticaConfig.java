@@ -12,11 +12,29 @@ import java.util.Properties;
 
 public class AnimaticaConfig {
     public static String ANIMATED_TEXTURES_KEY = "animated_textures";
+    public static String COMPACT_SOURCES_KEY = "compact_sources";
+    public static String NATIVE_MEMORY_BUDGET_KEY = "native_memory_budget_mb";
+    public static String QUANTIZE_BLENDS_KEY = "quantize_blends";
+    public static String LEAN_TEXTURES_KEY = "lean_textures";
+    public static String STREAM_THRESHOLD_KEY = "stream_threshold_mb";
+    public static String STREAM_WINDOW_KEY = "stream_window_frames";
 
     public static final String FILE_NAME = "animatica.properties";
 
     private final SimpleOption<Boolean> animatedTexturesOption;
     public boolean animatedTextures;
+    // Stores animation source images with a palette when they use few enough colors, trading compose speed for memory
+    public boolean compactSources;
+    // Maximum off-heap memory for animated texture images in MiB, or 0 for no limit
+    public int nativeMemoryBudgetMb;
+    // Skips redrawing interpolated animations on ticks where their 8-bit blend weight does not change
+    public boolean quantizeBlends;
+    // Releases the CPU-side copy of each animated texture's original image after it is first drawn
+    public boolean leanTextures;
+    // Animation sources larger than this many MiB are streamed from disk rather than kept in memory, or 0 to never stream
+    public int streamThresholdMb;
+    // The number of upcoming frames kept in memory for streamed animation sources
+    public int streamWindowFrames;
 
     public AnimaticaConfig() {
         try {
@@ -40,10 +58,22 @@ public class AnimaticaConfig {
 
     public void writeTo(Properties properties) {
         properties.put(ANIMATED_TEXTURES_KEY, Boolean.toString(animatedTextures));
+        properties.put(COMPACT_SOURCES_KEY, Boolean.toString(compactSources));
+        properties.put(NATIVE_MEMORY_BUDGET_KEY, Integer.toString(nativeMemoryBudgetMb));
+        properties.put(QUANTIZE_BLENDS_KEY, Boolean.toString(quantizeBlends));
+        properties.put(LEAN_TEXTURES_KEY, Boolean.toString(leanTextures));
+        properties.put(STREAM_THRESHOLD_KEY, Integer.toString(streamThresholdMb));
+        properties.put(STREAM_WINDOW_KEY, Integer.toString(streamWindowFrames));
     }
 
     public void readFrom(Properties properties) {
         this.animatedTextures = boolFrom(properties.getProperty(ANIMATED_TEXTURES_KEY), true);
+        this.compactSources = boolFrom(properties.getProperty(COMPACT_SOURCES_KEY), false);
+        this.nativeMemoryBudgetMb = Math.max(0, intFrom(properties.getProperty(NATIVE_MEMORY_BUDGET_KEY), 0));
+        this.quantizeBlends = boolFrom(properties.getProperty(QUANTIZE_BLENDS_KEY), true);
+        this.leanTextures = boolFrom(properties.getProperty(LEAN_TEXTURES_KEY), true);
+        this.streamThresholdMb = Math.max(0, intFrom(properties.getProperty(STREAM_THRESHOLD_KEY), 0));
+        this.streamWindowFrames = Math.max(2, intFrom(properties.getProperty(STREAM_WINDOW_KEY), 16));
     }
 
     public Path getFile() throws IOException {
@@ -84,4 +114,15 @@ public class AnimaticaConfig {
     private static boolean boolFrom(String s, boolean defaultVal) {
         return s == null ? defaultVal : "true".equals(s);
     }
+
+    private static int intFrom(String s, int defaultVal) {
+        if (s == null) {
+            return defaultVal;
+        }
+        try {
+            return Integer.parseInt(s.trim());
+        } catch (NumberFormatException ignored) {
+            return defaultVal;
+        }
+    }
 }
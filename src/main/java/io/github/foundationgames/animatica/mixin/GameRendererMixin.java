@@ -0,0 +1,16 @@
+package io.github.foundationgames.animatica.mixin;
+
+import io.github.foundationgames.animatica.animation.AnimationLoader;
+import net.minecraft.client.render.GameRenderer;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+
+@Mixin(GameRenderer.class)
+public class GameRendererMixin {
+    @Inject(method = "render", at = @At("HEAD"))
+    private void animatica$updateAnimatedTextures(float tickDelta, long startTime, boolean tick, CallbackInfo ci) {
+        AnimationLoader.INSTANCE.updateTextures();
+    }
+}
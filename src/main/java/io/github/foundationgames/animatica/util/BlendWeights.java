@@ -0,0 +1,33 @@
+package io.github.foundationgames.animatica.util;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public enum BlendWeights {;
+    // Weights are fractions of SCALE, which is a power of two so that blending can divide by it with a shift
+    // Weights within a phase range from 0 up to SCALE - 1, stored as shorts
+    public static final int SHIFT = 8;
+    public static final int SCALE = 1 << SHIFT;
+
+    private static final Map<Integer, short[]> TABLES = new HashMap<>();
+
+    /**
+     * Get the table of blend weights for an interpolated phase, shared between all phases of the same duration
+     *
+     * @param duration The duration of the phase
+     * @return A table holding the weight of the second image (out of {@link #SCALE}) for each frame of the phase
+     */
+    public static short[] forDuration(int duration) {
+        return TABLES.computeIfAbsent(Math.max(duration, 0), d -> {
+            var weights = new short[d];
+            for (int f = 0; f < d; f++) {
+                weights[f] = (short) ((f * SCALE) / d);
+            }
+            return weights;
+        });
+    }
+
+    public static void clearCache() {
+        TABLES.clear();
+    }
+}
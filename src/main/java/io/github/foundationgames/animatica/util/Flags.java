@@ -1,5 +0,0 @@
-package io.github.foundationgames.animatica.util;
-
-public enum Flags {;
-    public static volatile boolean ALLOW_INVALID_ID_CHARS = false;
-}
@@ -0,0 +1,56 @@
+package io.github.foundationgames.animatica.util;
+
+import net.minecraft.client.texture.NativeImage;
+
+// A readable image which animation frames can be copied from, either a plain NativeImage or a more compact encoding
+public interface ImageSource extends AutoCloseable {
+    int getColor(int x, int y);
+
+    NativeImage.Format getFormat();
+
+    int getWidth();
+
+    int getHeight();
+
+    // The number of bytes this source holds outside the Java heap
+    long getNativeBytes();
+
+    @Override
+    void close();
+
+    static ImageSource of(NativeImage image) {
+        return new Native(image);
+    }
+
+    record Native(NativeImage image) implements ImageSource {
+        @Override
+        public int getColor(int x, int y) {
+            return image.getColor(x, y);
+        }
+
+        @Override
+        public NativeImage.Format getFormat() {
+            return image.getFormat();
+        }
+
+        @Override
+        public int getWidth() {
+            return image.getWidth();
+        }
+
+        @Override
+        public int getHeight() {
+            return image.getHeight();
+        }
+
+        @Override
+        public long getNativeBytes() {
+            return (long) image.getWidth() * image.getHeight() * image.getFormat().getChannelCount();
+        }
+
+        @Override
+        public void close() {
+            image.close();
+        }
+    }
+}
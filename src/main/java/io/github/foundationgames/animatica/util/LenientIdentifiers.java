@@ -0,0 +1,118 @@
+package io.github.foundationgames.animatica.util;
+
+import io.github.foundationgames.animatica.Animatica;
+import net.minecraft.util.Identifier;
+import net.minecraft.util.InvalidIdentifierException;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+// Creates identifiers which may contain invalid path characters, to support packs with extremely outdated formatting
+// (because OptiFine does too). Leniency only applies to the thread loading animations, leaving the rest of the game unaffected
+public enum LenientIdentifiers {;
+    private static final String UNKNOWN_PACK = "unknown";
+
+    // Deliberately not volatile, as it is only ever compared to the current thread, which a stale value seen by any
+    // other thread can never be equal to; only written by begin() and end()
+    private static Thread lenientThread = null;
+    // How many calls creating a single lenient identifier are in progress on each thread
+    private static final ThreadLocal<Integer> CALL_DEPTH = ThreadLocal.withInitial(() -> 0);
+
+    // Only accessed by the lenient thread
+    private static String currentPack = UNKNOWN_PACK;
+    private static final Map<String, List<String>> INVALID_IDS = new LinkedHashMap<>();
+
+    public static boolean isLenient() {
+        return isInSession() || CALL_DEPTH.get() > 0;
+    }
+
+    private static boolean isInSession() {
+        return lenientThread == Thread.currentThread();
+    }
+
+    // Allows invalid identifiers on the current thread until end() is called, collecting warnings about them
+    public static void begin() {
+        lenientThread = Thread.currentThread();
+        currentPack = UNKNOWN_PACK;
+    }
+
+    // Stops allowing invalid identifiers, and logs one warning for each pack that used them
+    public static void end() {
+        lenientThread = null;
+        currentPack = UNKNOWN_PACK;
+
+        INVALID_IDS.forEach((pack, ids) ->
+                Animatica.LOG.warn("Legacy resource pack '{}' is using {} invalid namespaced identifiers, such as '{}'! DO NOT use non [a-z0-9_.-] characters for resource pack files and file names!",
+                        pack, ids.size(), ids.get(0)));
+        INVALID_IDS.clear();
+    }
+
+    // Sets the pack that any invalid identifiers created from now on should be reported for
+    public static void setPack(String pack) {
+        if (isInSession()) {
+            currentPack = pack;
+        }
+    }
+
+    public static Identifier of(String id) throws InvalidIdentifierException {
+        return create(() -> new Identifier(id));
+    }
+
+    public static Identifier of(String namespace, String path) throws InvalidIdentifierException {
+        return create(() -> new Identifier(namespace, path));
+    }
+
+    // Appends to the path of an identifier, without reporting it again should its path be invalid
+    public static Identifier withSuffix(Identifier id, String suffix) {
+        return lenient(() -> new Identifier(id.getNamespace(), id.getPath() + suffix));
+    }
+
+    // Reports an identifier (such as one found while searching a pack) if its path contains invalid characters
+    public static void check(Identifier id) {
+        if (isInSession()) {
+            check(id, true);
+        }
+    }
+
+    private static void check(Identifier id, boolean collect) {
+        if (!isPathAllowed(id.getPath()) && !id.getPath().startsWith("~/")) {
+            if (collect) {
+                INVALID_IDS.computeIfAbsent(currentPack, p -> new ArrayList<>()).add(id.toString());
+            } else {
+                Animatica.LOG.warn("Legacy resource pack is using an invalid namespaced identifier '{}'! DO NOT use non [a-z0-9_.-] characters for resource pack files and file names!", id);
+            }
+        }
+    }
+
+    private static Identifier create(Supplier<Identifier> factory) {
+        var id = lenient(factory);
+        // Outside of begin() and end() there is nothing to collect warnings into
+        check(id, isInSession());
+        return id;
+    }
+
+    // Allows invalid identifiers for the duration of the factory on the current thread only, without touching
+    // lenientThread, which other threads read
+    private static Identifier lenient(Supplier<Identifier> factory) {
+        int depth = CALL_DEPTH.get();
+        CALL_DEPTH.set(depth + 1);
+        try {
+            return factory.get();
+        } finally {
+            CALL_DEPTH.set(depth);
+        }
+    }
+
+    private static boolean isPathAllowed(String path) {
+        if (path == null) return true;
+        for (char c : path.toCharArray()) {
+            if (!(c == '_' || c == '-' || c >= 'a' && c <= 'z' || c >= '0' && c <= '9' || c == '/' || c == '.')) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,114 @@
+package io.github.foundationgames.animatica.util;
+
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import net.minecraft.client.texture.NativeImage;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * An image stored on the heap as a palette of at most 256 colors and one 8-bit (or, with at most 16 colors,
+ * 4-bit) palette index per pixel, which is decoded on the fly as pixels are read
+ */
+public final class PalettedImage implements ImageSource {
+    public static final int MAX_COLORS = 256;
+    public static final int MAX_PACKED_COLORS = 16;
+
+    private final NativeImage.Format format;
+    private final int width;
+    private final int height;
+    private final int[] palette;
+    private final byte[] indices;
+    private final boolean packed;
+
+    private PalettedImage(NativeImage.Format format, int width, int height, int[] palette, byte[] indices, boolean packed) {
+        this.format = format;
+        this.width = width;
+        this.height = height;
+        this.palette = palette;
+        this.indices = indices;
+        this.packed = packed;
+    }
+
+    /**
+     * Encode an image with a palette, if it uses few enough colors
+     *
+     * @param image The image to encode, which is left open
+     * @return The encoded image, or null if the image uses more than {@link #MAX_COLORS} colors
+     */
+    public static @Nullable PalettedImage tryEncode(NativeImage image) {
+        final int width = image.getWidth();
+        final int height = image.getHeight();
+
+        var colorIndices = new Int2IntOpenHashMap();
+        colorIndices.defaultReturnValue(-1);
+        var palette = new int[MAX_COLORS];
+        var indices = new byte[width * height];
+        int colorCount = 0;
+
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int color = image.getColor(x, y);
+                int index = colorIndices.get(color);
+                if (index < 0) {
+                    if (colorCount >= MAX_COLORS) {
+                        return null;
+                    }
+                    index = colorCount++;
+                    colorIndices.put(color, index);
+                    palette[index] = color;
+                }
+                indices[y * width + x] = (byte) index;
+            }
+        }
+
+        var trimmedPalette = new int[colorCount];
+        System.arraycopy(palette, 0, trimmedPalette, 0, colorCount);
+
+        if (colorCount > MAX_PACKED_COLORS) {
+            return new PalettedImage(image.getFormat(), width, height, trimmedPalette, indices, false);
+        }
+
+        // Two pixels per byte, the first pixel in the low nibble
+        var packedIndices = new byte[(indices.length + 1) / 2];
+        for (int i = 0; i < indices.length; i++) {
+            packedIndices[i >> 1] |= (byte) (indices[i] << ((i & 1) << 2));
+        }
+        return new PalettedImage(image.getFormat(), width, height, trimmedPalette, packedIndices, true);
+    }
+
+    @Override
+    public int getColor(int x, int y) {
+        int i = y * width + x;
+        if (packed) {
+            return palette[(indices[i >> 1] >> ((i & 1) << 2)) & 0xF];
+        }
+        return palette[indices[i] & 0xFF];
+    }
+
+    @Override
+    public NativeImage.Format getFormat() {
+        return format;
+    }
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    @Override
+    public long getNativeBytes() {
+        return 0;
+    }
+
+    public int getColorCount() {
+        return palette.length;
+    }
+
+    @Override
+    public void close() {
+    }
+}
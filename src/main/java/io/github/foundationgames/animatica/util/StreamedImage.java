@@ -0,0 +1,350 @@
+package io.github.foundationgames.animatica.util;
+
+import io.github.foundationgames.animatica.Animatica;
+import net.minecraft.client.texture.NativeImage;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+
+/**
+ * A tall strip of animation frames, of which only a window of frames is kept in memory at a time
+ * The decoded frames are stored in a cache file, from which upcoming frames are read on a background thread
+ * Should a frame not have been read in time, the last frame available is held in its place
+ */
+public final class StreamedImage implements ImageSource {
+    // The cache file holds a header followed by every row of the image, top to bottom, with one int per pixel
+    private static final int MAGIC = 0x414E4D46;
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 5 * Integer.BYTES;
+
+    private final NativeImage.Format format;
+    private final int width;
+    private final int height;
+    private final int frameHeight;
+    private final int frameCount;
+    private final int windowSize;
+    private final Executor executor;
+
+    private final Path cacheFile;
+    private final FileChannel channel;
+    private volatile boolean closed = false;
+
+    private final Map<Integer, int[]> resident = new ConcurrentHashMap<>();
+    private final Set<Integer> pending = ConcurrentHashMap.newKeySet();
+    // The frames that may currently be kept in memory, checked by reads completing after the window has moved on
+    private volatile int[] window;
+
+    // Only accessed by the thread drawing animations
+    private int[] held = null;
+    private boolean holding = false;
+    private int cachedIndex0 = -1;
+    private int[] cachedPixels0 = null;
+    private int cachedIndex1 = -1;
+    private int[] cachedPixels1 = null;
+
+    private StreamedImage(NativeImage.Format format, int width, int height, int frameHeight, int windowSize, int[] initialFrames, Executor executor, Path cacheFile, FileChannel channel) {
+        this.format = format;
+        this.width = width;
+        this.height = height;
+        this.frameHeight = frameHeight;
+        this.frameCount = height / frameHeight;
+        this.windowSize = windowSize;
+        this.window = Arrays.copyOf(initialFrames, Math.min(initialFrames.length, windowSize));
+        this.executor = executor;
+        this.cacheFile = cacheFile;
+        this.channel = channel;
+    }
+
+    /**
+     * Open an image from a cache file written by {@link #create} during an earlier reload, reading the first frames
+     * to be drawn into memory
+     *
+     * @param cacheFile The cache file, which is kept once the image is closed
+     * @param width The expected width of the image
+     * @param height The expected height of the image
+     * @param frameHeight The height of each frame in the image
+     * @param windowSize The number of frames to keep in memory
+     * @param initialFrames The indices of the frames that will be drawn first, in order
+     * @param executor The executor to read upcoming frames on
+     * @return The image, or null if the cache file does not exist or does not hold an image of the expected size
+     */
+    public static @Nullable StreamedImage open(Path cacheFile, int width, int height, int frameHeight, int windowSize, int[] initialFrames, Executor executor) throws IOException {
+        if (!Files.isRegularFile(cacheFile) || Files.size(cacheFile) != HEADER_BYTES + (long) width * height * Integer.BYTES) {
+            return null;
+        }
+
+        var channel = FileChannel.open(cacheFile, StandardOpenOption.READ);
+        try {
+            var header = ByteBuffer.allocate(HEADER_BYTES);
+            while (header.hasRemaining()) {
+                if (channel.read(header, header.position()) < 0) {
+                    throw new IOException("Unexpected end of animation frame cache " + cacheFile);
+                }
+            }
+            header.flip();
+            if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+                channel.close();
+                return null;
+            }
+            int formatIndex = header.getInt();
+            if (formatIndex < 0 || formatIndex >= NativeImage.Format.values().length || header.getInt() != width || header.getInt() != height) {
+                channel.close();
+                return null;
+            }
+
+            var streamed = new StreamedImage(NativeImage.Format.values()[formatIndex], width, height, frameHeight, windowSize, initialFrames, executor, cacheFile, channel);
+            for (int f : streamed.window) {
+                if (f >= 0 && f < streamed.frameCount) {
+                    streamed.resident.put(f, streamed.readFrame(f));
+                }
+            }
+            return streamed;
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Write an image to a cache file to be streamed from, keeping the first frames to be drawn in memory
+     *
+     * @param image The image to stream, which is left open
+     * @param cacheDir The directory holding cache files
+     * @param cacheFile The file to keep the image in for later reloads to {@link #open}, or null to use a temporary
+     *                  file in the cache directory which is deleted once the image is closed
+     * @param frameHeight The height of each frame in the image
+     * @param windowSize The number of frames to keep in memory
+     * @param initialFrames The indices of the frames that will be drawn first, in order
+     * @param executor The executor to read upcoming frames on
+     */
+    public static StreamedImage create(NativeImage image, Path cacheDir, @Nullable Path cacheFile, int frameHeight, int windowSize, int[] initialFrames, Executor executor) throws IOException {
+        var window = Arrays.copyOf(initialFrames, Math.min(initialFrames.length, windowSize));
+        Files.createDirectories(cacheDir);
+        var writeFile = Files.createTempFile(cacheDir, "frames", ".tmp");
+
+        Map<Integer, int[]> frames;
+        StreamedImage streamed;
+        if (cacheFile == null) {
+            var channel = FileChannel.open(writeFile, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+            try {
+                frames = write(image, channel, frameHeight, window);
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+            streamed = new StreamedImage(image.getFormat(), image.getWidth(), image.getHeight(), frameHeight, windowSize, window, executor, writeFile, channel);
+        } else {
+            // A kept file is written under a temporary name first, so that it is never found only partly written
+            try {
+                try (var channel = FileChannel.open(writeFile, StandardOpenOption.WRITE)) {
+                    frames = write(image, channel, frameHeight, window);
+                }
+                try {
+                    Files.move(writeFile, cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(writeFile, cacheFile, StandardCopyOption.REPLACE_EXISTING);
+                }
+            } catch (IOException e) {
+                Files.deleteIfExists(writeFile);
+                throw e;
+            }
+            streamed = new StreamedImage(image.getFormat(), image.getWidth(), image.getHeight(), frameHeight, windowSize, window, executor, cacheFile, FileChannel.open(cacheFile, StandardOpenOption.READ));
+        }
+
+        streamed.resident.putAll(frames);
+        return streamed;
+    }
+
+    // Writes the header and rows of an image, returning the pixels of the given frames
+    private static Map<Integer, int[]> write(NativeImage image, FileChannel channel, int frameHeight, int[] keep) throws IOException {
+        final int width = image.getWidth();
+        var header = ByteBuffer.allocate(HEADER_BYTES)
+                .putInt(MAGIC).putInt(VERSION).putInt(image.getFormat().ordinal()).putInt(width).putInt(image.getHeight())
+                .flip();
+        writeFully(channel, header, 0);
+
+        // One buffer is reused for every frame, and only the frames to keep are also copied out to arrays
+        var frames = new HashMap<Integer, int[]>();
+        var buffer = ByteBuffer.allocate(width * frameHeight * Integer.BYTES);
+        for (int top = 0; top < image.getHeight(); top += frameHeight) {
+            int rows = Math.min(frameHeight, image.getHeight() - top);
+            buffer.clear();
+            for (int y = top; y < top + rows; y++) {
+                for (int x = 0; x < width; x++) {
+                    buffer.putInt(image.getColor(x, y));
+                }
+            }
+            buffer.flip();
+
+            int f = top / frameHeight;
+            if (rows == frameHeight && contains(keep, f)) {
+                var pixels = new int[width * frameHeight];
+                buffer.asIntBuffer().get(pixels);
+                frames.put(f, pixels);
+            }
+            writeFully(channel, buffer, HEADER_BYTES + (long) top * width * Integer.BYTES);
+        }
+        return frames;
+    }
+
+    /**
+     * Make the given frames the window kept in memory, forgetting all others and reading any missing ones
+     * in the background; should be called before each time frames are read from the image
+     *
+     * @param frames The indices of the upcoming frames, in the order they will be needed
+     */
+    public void prefetch(int[] frames) {
+        cachedIndex0 = -1;
+        cachedIndex1 = -1;
+        holding = false;
+
+        var window = Arrays.copyOf(frames, Math.min(frames.length, windowSize));
+        this.window = window;
+        resident.keySet().removeIf(f -> !contains(window, f));
+
+        for (final int f : window) {
+            if (f >= 0 && f < frameCount && !resident.containsKey(f) && pending.add(f)) {
+                executor.execute(() -> read(f));
+            }
+        }
+    }
+
+    private void read(int frame) {
+        try {
+            if (closed) {
+                return;
+            }
+
+            resident.put(frame, readFrame(frame));
+            // The image may have been closed or the window moved on while reading, in which case the frame is not
+            // kept; checked after storing it, so that it is removed here should prefetch have already evicted frames
+            if (closed || !contains(window, frame)) {
+                resident.remove(frame);
+            }
+        } catch (IOException e) {
+            if (!closed) {
+                Animatica.LOG.error("Error streaming animation frame {} from {}", frame, cacheFile, e);
+            }
+        } finally {
+            pending.remove(frame);
+        }
+    }
+
+    private int[] readFrame(int frame) throws IOException {
+        var buffer = ByteBuffer.allocate(getFrameBytes());
+        long offset = HEADER_BYTES + (long) frame * buffer.capacity();
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, offset + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of animation frame cache " + cacheFile);
+            }
+        }
+        buffer.flip();
+
+        var pixels = new int[width * frameHeight];
+        buffer.asIntBuffer().get(pixels);
+        return pixels;
+    }
+
+    @Override
+    public int getColor(int x, int y) {
+        int frame = y / frameHeight;
+        int[] pixels;
+        if (frame == cachedIndex0) {
+            pixels = cachedPixels0;
+        } else if (frame == cachedIndex1) {
+            pixels = cachedPixels1;
+        } else {
+            pixels = resident.get(frame);
+            if (pixels == null) {
+                // The frame was not read in time, so hold the last one instead of waiting for it
+                pixels = held;
+                holding = true;
+            } else {
+                held = pixels;
+            }
+
+            cachedIndex1 = cachedIndex0;
+            cachedPixels1 = cachedPixels0;
+            cachedIndex0 = frame;
+            cachedPixels0 = pixels;
+        }
+
+        return pixels == null ? 0 : pixels[(y - frame * frameHeight) * width + x];
+    }
+
+    // Whether a held frame was read in place of one not yet in memory since the last prefetch
+    public boolean isHoldingFrame() {
+        return holding;
+    }
+
+    public int getWindowSize() {
+        return windowSize;
+    }
+
+    private int getFrameBytes() {
+        return width * frameHeight * Integer.BYTES;
+    }
+
+    @Override
+    public NativeImage.Format getFormat() {
+        return format;
+    }
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    @Override
+    public long getNativeBytes() {
+        return 0;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        resident.clear();
+        held = null;
+        cachedPixels0 = null;
+        cachedPixels1 = null;
+        try {
+            channel.close();
+        } catch (IOException e) {
+            Animatica.LOG.error("Error closing animation frame cache {}", cacheFile, e);
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long offset) throws IOException {
+        long start = offset - buffer.position();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, start + buffer.position());
+        }
+    }
+
+    private static boolean contains(int[] frames, int frame) {
+        for (int f : frames) {
+            if (f == frame) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -1,12 +1,48 @@
 package io.github.foundationgames.animatica.util;
 
 import net.minecraft.client.texture.NativeImage;
-import net.minecraft.util.math.MathHelper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
 
 public enum TextureUtil {;
+    private static final byte[] PNG_SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+    private static final byte[] PNG_HEADER_CHUNK = {'I', 'H', 'D', 'R'};
+
+    /**
+     * Read the size of a PNG image from its header, without decoding the image
+     *
+     * @param in A stream positioned at the start of the PNG file
+     * @return The number of pixels in the image, or -1 if the stream does not start with a PNG header
+     */
+    public static long readPngPixelCount(InputStream in) throws IOException {
+        var size = readPngSize(in);
+        return size == null ? -1 : (long) size[0] * size[1];
+    }
+
+    /**
+     * Read the width and height of a PNG image from its header, without decoding the image
+     *
+     * @param in A stream positioned at the start of the PNG file
+     * @return The width and height of the image, or null if the stream does not start with a valid PNG header
+     */
+    public static int[] readPngSize(InputStream in) throws IOException {
+        var header = in.readNBytes(24);
+        if (header.length < 24 ||
+                !ByteBuffer.wrap(header, 0, 8).equals(ByteBuffer.wrap(PNG_SIGNATURE)) ||
+                !ByteBuffer.wrap(header, 12, 4).equals(ByteBuffer.wrap(PNG_HEADER_CHUNK))) {
+            return null;
+        }
+        var size = ByteBuffer.wrap(header, 16, 8);
+        int width = size.getInt();
+        int height = size.getInt();
+        // The PNG specification limits both to 2^31 - 1, which a negative int would exceed
+        return width < 0 || height < 0 ? null : new int[] {width, height};
+    }
 
     /**
-     * Copy a section of an image into another image
+     * Copy a section of an image, which may be palette encoded, into another image
      *
      * @param src The source image to copy from
      * @param u The u coordinate on the source image to start the selection from
@@ -17,7 +53,7 @@ public enum TextureUtil {;
      * @param du The u coordinate on the destination image to place the selection at
      * @param dv The v coordinate on the destination image to place the selection at
      */
-    public static void copy(NativeImage src, int u, int v, int w, int h, NativeImage dest, int du, int dv) {
+    public static void copy(ImageSource src, int u, int v, int w, int h, NativeImage dest, int du, int dv) {
         // iterate through the entire section of the image to be copied over
         for (int rx = 0; rx < w; rx++) {
             for (int ry = 0; ry < h; ry++) {
@@ -38,7 +74,7 @@ public enum TextureUtil {;
     /**
      * Copy a blend between 2 sections on a source image to a destination image
      *
-     * @param src The source image to copy from
+     * @param src The source image to copy from, which may be palette encoded
      * @param u0 The u coordinate on the source image to start the first selection from
      * @param v0 The v coordinate on the source image to start the first selection from
      * @param u1 The u coordinate on the source image to start the second selection from
@@ -48,10 +84,11 @@ public enum TextureUtil {;
      * @param dest The destination image to copy to
      * @param du The u coordinate on the destination image to place the selection at
      * @param dv The v coordinate on the destination image to place the selection at
-     * @param blend The blend between the first selection from the source and the
-     *              second (0 = solid first image, 1 = solid second image)
+     * @param weight The blend between the first selection from the source and the second, out of
+     *               {@link BlendWeights#SCALE} (0 = solid first image, SCALE = solid second image)
      */
-    public static void blendCopy(NativeImage src, int u0, int v0, int u1, int v1, int w, int h, NativeImage dest, int du, int dv, float blend) {
+    public static void blendCopy(ImageSource src, int u0, int v0, int u1, int v1, int w, int h, NativeImage dest, int du, int dv, int weight) {
+        final var format = src.getFormat();
         // iterate through the entire section of the image to be copied over
         for (int rx = 0; rx < w; rx++) {
             for (int ry = 0; ry < h; ry++) {
@@ -67,12 +104,45 @@ public enum TextureUtil {;
 
                 // set the color of the target pixel on the destination image to a blend
                 // of the colors from the corresponding pixels on the source image
-                dest.setColor(trgX, trgY, lerpColor(src.getFormat(), src.getColor(srcX0, srcY0), src.getColor(srcX1, srcY1), blend));
+                dest.setColor(trgX, trgY, lerpColor(format, src.getColor(srcX0, srcY0), src.getColor(srcX1, srcY1), weight));
+            }
+        }
+    }
+
+    /**
+     * Compose a blend between 2 sections of an image source into an array of colors, to be copied elsewhere later
+     *
+     * @param dest The array to store the colors in, row by row, which must hold at least w * h colors
+     * @see #blendCopy(ImageSource, int, int, int, int, int, int, NativeImage, int, int, int)
+     */
+    public static void blend(ImageSource src, int u0, int v0, int u1, int v1, int w, int h, int[] dest, int weight) {
+        final var format = src.getFormat();
+        for (int ry = 0; ry < h; ry++) {
+            for (int rx = 0; rx < w; rx++) {
+                dest[ry * w + rx] = lerpColor(format, src.getColor(u0 + rx, v0 + ry), src.getColor(u1 + rx, v1 + ry), weight);
+            }
+        }
+    }
+
+    /**
+     * Copy an array of colors, stored row by row, into an image
+     *
+     * @param src The colors to copy
+     * @param w The width of the area the colors represent
+     * @param h The height of the area the colors represent
+     * @param dest The destination image to copy to
+     * @param du The u coordinate on the destination image to place the colors at
+     * @param dv The v coordinate on the destination image to place the colors at
+     */
+    public static void copy(int[] src, int w, int h, NativeImage dest, int du, int dv) {
+        for (int ry = 0; ry < h; ry++) {
+            for (int rx = 0; rx < w; rx++) {
+                dest.setColor(du + rx, dv + ry, src[ry * w + rx]);
             }
         }
     }
 
-    public static int lerpColor(NativeImage.Format format, int c1, int c2, float delta) {
+    public static int lerpColor(NativeImage.Format format, int c1, int c2, int weight) {
         int a1 = (c1 >> format.getAlphaOffset()) & 0xFF;
         int r1 = (c1 >> format.getRedOffset()) & 0xFF;
         int g1 = (c1 >> format.getGreenOffset()) & 0xFF;
@@ -96,10 +166,11 @@ public enum TextureUtil {;
             b2 = b1;
         }
 
-        int oa = MathHelper.lerp(delta, a1, a2);
-        int or = MathHelper.lerp(delta, r1, r2);
-        int og = MathHelper.lerp(delta, g1, g2);
-        int ob = MathHelper.lerp(delta, b1, b2);
+        // Arithmetic shifts floor negative values too, like a float lerp would
+        int oa = a1 + (((a2 - a1) * weight) >> BlendWeights.SHIFT);
+        int or = r1 + (((r2 - r1) * weight) >> BlendWeights.SHIFT);
+        int og = g1 + (((g2 - g1) * weight) >> BlendWeights.SHIFT);
+        int ob = b1 + (((b2 - b1) * weight) >> BlendWeights.SHIFT);
 
         return (oa << format.getAlphaOffset()) | (or << format.getRedOffset()) | (og << format.getGreenOffset()) | (ob << format.getBlueOffset());
     }
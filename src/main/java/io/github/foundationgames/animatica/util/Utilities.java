@@ -9,10 +9,10 @@ public enum Utilities {;
             if (lInd > 0) {
                 var builder = new StringBuilder(fileRelativeTo.getPath());
                 builder.replace(lInd, builder.length(), path.getPath().replaceFirst("\\./", "/"));
-                return new Identifier(fileRelativeTo.getNamespace(), builder.toString());
+                return LenientIdentifiers.of(fileRelativeTo.getNamespace(), builder.toString());
             }
         } else if (path.getPath().startsWith("~/")) {
-            return new Identifier(path.getNamespace(), path.getPath().replaceFirst("~/", "optifine/"));
+            return LenientIdentifiers.of(path.getNamespace(), path.getPath().replaceFirst("~/", "optifine/"));
         }
         return path;
     }
@@ -0,0 +1,102 @@
+package io.github.foundationgames.animatica.animation;
+
+import io.github.foundationgames.animatica.util.BlendWeights;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class AnimationClocksTest {
+    private static void registerAll(AnimationClocks clocks) {
+        // Static phases only
+        clocks.register(List.of(
+                new AnimatedTexture.Phase(3, 0),
+                new AnimatedTexture.Phase(5, 16),
+                new AnimatedTexture.Phase(1, 32)
+        ), 9);
+        // Static phases between interpolated ones, including a blend between two identical frames
+        clocks.register(List.of(
+                new AnimatedTexture.Phase(2, 0),
+                new AnimatedTexture.InterpolatedPhase(7, 0, 16, BlendWeights.forDuration(7)),
+                new AnimatedTexture.Phase(4, 16),
+                new AnimatedTexture.InterpolatedPhase(10, 16, 16, BlendWeights.forDuration(10))
+        ), 23);
+        // A negative duration, as from an interpolation delay longer than its frame, which is treated as empty
+        clocks.register(List.of(
+                new AnimatedTexture.Phase(5, 0),
+                new AnimatedTexture.InterpolatedPhase(-2, 0, 16, BlendWeights.forDuration(-2)),
+                new AnimatedTexture.Phase(4, 16)
+        ), 9);
+        // Single frame
+        clocks.register(List.of(new AnimatedTexture.Phase(1, 0)), 1);
+    }
+
+    @Test
+    public void seekMatchesSingleSteps() {
+        var stepped = new AnimationClocks();
+        registerAll(stepped);
+
+        for (int tick = 1; tick <= 500; tick++) {
+            stepped.advanceTo(tick);
+
+            var seeked = new AnimationClocks();
+            registerAll(seeked);
+            seeked.advanceTo(tick);
+
+            for (int clock = 0; clock < stepped.size(); clock++) {
+                assertEquals(stepped.getPhase(clock), seeked.getPhase(clock), "phase of clock " + clock + " at tick " + tick);
+                assertEquals(stepped.getPhaseFrame(clock), seeked.getPhaseFrame(clock), "phase frame of clock " + clock + " at tick " + tick);
+                assertEquals(stepped.isOnFrameZero(clock), seeked.isOnFrameZero(clock), "frame zero of clock " + clock + " at tick " + tick);
+            }
+        }
+    }
+
+    @Test
+    public void rollbackForgetsLaterRegistrations() {
+        var clocks = new AnimationClocks();
+        registerAll(clocks);
+        int texture = clocks.registerTexture(new int[] {0, 1});
+
+        var mark = clocks.mark();
+        int discarded = clocks.register(List.of(new AnimatedTexture.Phase(4, 0), new AnimatedTexture.Phase(4, 16)), 8);
+        clocks.registerTexture(new int[] {0, discarded});
+        clocks.rollback(mark);
+
+        assertEquals(4, clocks.size(), "size after rollback");
+        assertEquals(discarded, clocks.register(List.of(new AnimatedTexture.Phase(1, 0)), 1), "reused clock index");
+        assertEquals(texture + 1, clocks.registerTexture(new int[] {2}), "reused texture index");
+
+        var expected = new AnimationClocks();
+        registerAll(expected);
+        expected.register(List.of(new AnimatedTexture.Phase(1, 0)), 1);
+        for (int tick = 1; tick <= 50; tick++) {
+            clocks.advanceTo(tick);
+            expected.advanceTo(tick);
+            for (int clock = 0; clock < expected.size(); clock++) {
+                assertEquals(expected.getPhase(clock), clocks.getPhase(clock), "phase of clock " + clock + " at tick " + tick);
+            }
+        }
+    }
+
+    @Test
+    public void quantizedBlendsChangeWithWeight() {
+        // Twice as many frames as weights, so each weight is held for two frames
+        int duration = BlendWeights.SCALE * 2;
+        var phases = List.<AnimatedTexture.Phase>of(new AnimatedTexture.InterpolatedPhase(duration, 0, 16, BlendWeights.forDuration(duration)));
+
+        var quantized = new AnimationClocks();
+        quantized.register(phases, duration);
+        var unquantized = new AnimationClocks();
+        unquantized.setQuantizeBlends(false);
+        unquantized.register(phases, duration);
+
+        for (int tick = 1; tick <= duration * 2; tick++) {
+            quantized.advanceTo(tick);
+            unquantized.advanceTo(tick);
+
+            assertEquals(tick % 2 == 0, quantized.isChanged(0), "quantized at tick " + tick);
+            assertEquals(true, unquantized.isChanged(0), "unquantized at tick " + tick);
+        }
+    }
+}
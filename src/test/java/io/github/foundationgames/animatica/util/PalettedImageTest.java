@@ -0,0 +1,55 @@
+package io.github.foundationgames.animatica.util;
+
+import net.minecraft.client.texture.NativeImage;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class PalettedImageTest {
+    // Fills an image with the given number of distinct opaque colors, which are negative as ints
+    private static NativeImage image(int width, int height, int colors) {
+        var image = new NativeImage(NativeImage.Format.RGBA, width, height, false);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int c = (y * image.getWidth() + x) % colors;
+                image.setColor(x, y, 0xFF000000 | ((c * 0x3C6EF3) & 0xFFFFFF));
+            }
+        }
+        return image;
+    }
+
+    private static void assertRoundTrip(NativeImage image, PalettedImage paletted) {
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                assertEquals(image.getColor(x, y), paletted.getColor(x, y), "color at " + x + ", " + y);
+            }
+        }
+    }
+
+    @Test
+    public void packedRoundTrip() {
+        // An odd pixel count leaves the last byte half used, and indices of 8 and above set the sign bit of each nibble
+        try (var image = image(7, 5, PalettedImage.MAX_PACKED_COLORS)) {
+            var paletted = PalettedImage.tryEncode(image);
+            assertEquals(PalettedImage.MAX_PACKED_COLORS, paletted.getColorCount(), "color count");
+            assertRoundTrip(image, paletted);
+        }
+    }
+
+    @Test
+    public void unpackedRoundTrip() {
+        try (var image = image(31, 17, PalettedImage.MAX_COLORS)) {
+            var paletted = PalettedImage.tryEncode(image);
+            assertEquals(PalettedImage.MAX_COLORS, paletted.getColorCount(), "color count");
+            assertRoundTrip(image, paletted);
+        }
+    }
+
+    @Test
+    public void tooManyColors() {
+        try (var image = image(31, 17, PalettedImage.MAX_COLORS + 1)) {
+            assertNull(PalettedImage.tryEncode(image));
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package io.github.foundationgames.animatica.util;
+
+import net.minecraft.client.texture.NativeImage;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class StreamedImageTest {
+    private static final int WIDTH = 3;
+    private static final int FRAME_HEIGHT = 2;
+    private static final int FRAMES = 8;
+
+    @TempDir
+    Path cacheDir;
+
+    // Runs background reads only when asked to, so that they can be made to complete late
+    private static class QueuedExecutor implements Executor {
+        final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+
+        @Override
+        public void execute(Runnable task) {
+            tasks.add(task);
+        }
+
+        void runAll() {
+            while (!tasks.isEmpty()) {
+                tasks.poll().run();
+            }
+        }
+    }
+
+    private static NativeImage strip() {
+        var image = new NativeImage(NativeImage.Format.RGBA, WIDTH, FRAME_HEIGHT * FRAMES, false);
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                image.setColor(x, y, 0xFF000000 | (y << 8) | x);
+            }
+        }
+        return image;
+    }
+
+    private static int colorOf(StreamedImage streamed, int frame) {
+        return streamed.getColor(1, frame * FRAME_HEIGHT + 1);
+    }
+
+    @Test
+    public void reopensKeptCacheFile() throws IOException {
+        var cacheFile = cacheDir.resolve("strip.frames");
+        var executor = new QueuedExecutor();
+        try (var image = strip()) {
+            StreamedImage.create(image, cacheDir, cacheFile, FRAME_HEIGHT, 2, new int[] {5, 6}, executor).close();
+
+            assertNull(StreamedImage.open(cacheFile, WIDTH + 1, image.getHeight(), FRAME_HEIGHT, 2, new int[] {5, 6}, executor), "open with another size");
+
+            var reopened = StreamedImage.open(cacheFile, WIDTH, image.getHeight(), FRAME_HEIGHT, 2, new int[] {5, 6}, executor);
+            // The initial frames are in memory right away, without any reads in the background
+            reopened.prefetch(new int[] {5, 6});
+            assertEquals(image.getColor(1, 5 * FRAME_HEIGHT + 1), colorOf(reopened, 5), "initial frame");
+            assertEquals(false, reopened.isHoldingFrame(), "holding after initial frame");
+            assertTrue(executor.tasks.isEmpty(), "no reads for initial frames");
+
+            reopened.prefetch(new int[] {7, 0});
+            executor.runAll();
+            reopened.prefetch(new int[] {7, 0});
+            assertEquals(image.getColor(1, 7 * FRAME_HEIGHT + 1), colorOf(reopened, 7), "streamed frame");
+            reopened.close();
+        }
+    }
+
+    @Test
+    public void lateReadsOutsideWindowAreDropped() throws IOException {
+        var executor = new QueuedExecutor();
+        try (var image = strip(); var streamed = StreamedImage.create(image, cacheDir, null, FRAME_HEIGHT, 2, new int[] {0, 1}, executor)) {
+            streamed.prefetch(new int[] {2, 3});
+            streamed.prefetch(new int[] {4, 5});
+            // Frames 2 and 3 are read only now, after the window has moved past them
+            executor.runAll();
+
+            colorOf(streamed, 2);
+            assertTrue(streamed.isHoldingFrame(), "frame outside the window was kept");
+
+            streamed.prefetch(new int[] {4, 5});
+            assertEquals(image.getColor(1, 4 * FRAME_HEIGHT + 1), colorOf(streamed, 4), "frame in window");
+            assertEquals(false, streamed.isHoldingFrame(), "holding in window");
+        }
+    }
+}
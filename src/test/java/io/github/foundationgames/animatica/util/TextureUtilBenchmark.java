@@ -0,0 +1,74 @@
+package io.github.foundationgames.animatica.util;
+
+import net.minecraft.client.texture.NativeImage;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+// Compares the speed of composing animation frames from each kind of image source
+// Run with "gradlew benchmark"; excluded from the regular tests
+@Tag("benchmark")
+public class TextureUtilBenchmark {
+    private static final int FRAME_SIZE = 64;
+    private static final int FRAMES = 32;
+    private static final int WARMUP_ROUNDS = 2000;
+    private static final int ROUNDS = 10000;
+
+    private static NativeImage strip(int colors) {
+        var image = new NativeImage(NativeImage.Format.RGBA, FRAME_SIZE, FRAME_SIZE * FRAMES, false);
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                int c = (y * image.getWidth() + x) % colors;
+                image.setColor(x, y, 0xFF000000 | ((c * 0x3C6EF3) & 0xFFFFFF));
+            }
+        }
+        return image;
+    }
+
+    private static void measure(String name, ImageSource src, Consumer<ImageSource> kernel) {
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            kernel.accept(src);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            kernel.accept(src);
+        }
+        long nanos = System.nanoTime() - start;
+        System.out.printf("%-24s %8.2f ns/pixel%n", name, (double) nanos / ((long) ROUNDS * FRAME_SIZE * FRAME_SIZE));
+    }
+
+    @Test
+    public void compose() {
+        try (var colors256 = strip(PalettedImage.MAX_COLORS); var colors16 = strip(PalettedImage.MAX_PACKED_COLORS);
+             var dest = new NativeImage(NativeImage.Format.RGBA, FRAME_SIZE, FRAME_SIZE, false)) {
+            var sources = new ImageSource[] {
+                    ImageSource.of(colors256),
+                    PalettedImage.tryEncode(colors256),
+                    PalettedImage.tryEncode(colors16)
+            };
+            var names = new String[] {"native", "paletted 8-bit", "paletted 4-bit"};
+            var composed = new int[FRAME_SIZE * FRAME_SIZE];
+
+            for (int s = 0; s < sources.length; s++) {
+                int[] frame = {0};
+                measure(names[s] + " copy", sources[s], src -> {
+                    int f = frame[0]++ % FRAMES;
+                    TextureUtil.copy(src, 0, f * FRAME_SIZE, FRAME_SIZE, FRAME_SIZE, dest, 0, 0);
+                });
+                measure(names[s] + " blend", sources[s], src -> {
+                    int f = frame[0]++ % FRAMES;
+                    TextureUtil.blend(src, 0, f * FRAME_SIZE, 0, ((f + 1) % FRAMES) * FRAME_SIZE, FRAME_SIZE, FRAME_SIZE, composed, f * BlendWeights.SCALE / FRAMES);
+                });
+            }
+
+            // Every source must have composed the same pixels for the comparison to mean anything
+            TextureUtil.copy(sources[0], 0, 0, FRAME_SIZE, FRAME_SIZE, dest, 0, 0);
+            assertEquals(colors256.getColor(5, 9), dest.getColor(5, 9));
+            TextureUtil.copy(sources[1], 0, 0, FRAME_SIZE, FRAME_SIZE, dest, 0, 0);
+            assertEquals(colors256.getColor(5, 9), dest.getColor(5, 9));
+        }
+    }
+}